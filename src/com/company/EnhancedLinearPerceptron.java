@@ -12,11 +12,10 @@ import weka.core.Capabilities;
 import weka.core.CapabilitiesHandler;
 import weka.core.Instance;
 import weka.core.Instances;
-import weka.filters.Filter;
-import weka.filters.unsupervised.attribute.Standardize;
 
 import java.io.Serializable;
 import java.text.DecimalFormat;
+import java.util.Random;
 
 public class EnhancedLinearPerceptron extends LinearPerceptron implements Serializable {
 
@@ -26,61 +25,96 @@ public class EnhancedLinearPerceptron extends LinearPerceptron implements Serial
     private boolean standardisedAttributes = true;
     private boolean online = true;
     private boolean modelSelection = false;
-    Standardize standardize = new Standardize();
+    RunningStatistics statistics;
+    RunningStatistics checkpointStatistics; // Statistics the checkpointed weights were trained against
 
 
     public void setStandardisedAttributes(boolean standardize) { this.standardisedAttributes = standardize; }
     public void setOnline(boolean online) { this.online = online; }
     public void setModelSelection(boolean modelSelection) { this.modelSelection = modelSelection; }
 
-    private boolean selectModel(Instances instances) throws Exception{
-        EnhancedLinearPerceptron ehp = new EnhancedLinearPerceptron();
+    private boolean selectModel(FeatureMatrix data) throws Exception{
         int folds = 10;
-        ehp.setOnline(true);
-        double cv_error_online = WekaTools.crossValError(ehp,instances,folds);
-
-        ehp = new EnhancedLinearPerceptron();
-        ehp.setOnline(false);
-        double cv_error_offline = WekaTools.crossValError(ehp,instances,folds);
+        double cv_error_online = crossValError(data, true, folds);
+        double cv_error_offline = crossValError(data, false, folds);
 
         return cv_error_online <= cv_error_offline;
     }
 
-    private void trainPerceptron(Instances instances) throws Exception{
+    /*
+    Cross validation error on data that has already been standardised, so the folds
+    are not standardised again.
+     */
+    private double crossValError(FeatureMatrix data, boolean online, int folds) throws Exception{
+        int totalInstances = data.numRows();
+
+        // Shuffle row order
+        int order[] = new int[totalInstances];
+        for(int i = 0; i < totalInstances; i++) order[i] = i;
+        Random random = new Random(1);
+        for(int i = totalInstances - 1; i > 0; i--){
+            int j = random.nextInt(i + 1);
+            int temp = order[i];
+            order[i] = order[j];
+            order[j] = temp;
+        }
+
+        int errors = 0;
+        for(int fold = 0; fold < folds; fold++){
+            int train[] = new int[totalInstances - (totalInstances - fold + folds - 1) / folds];
+            int trainIndex = 0;
+            for(int i = 0; i < totalInstances; i++){
+                if(i % folds != fold) train[trainIndex++] = order[i];
+            }
+
+            EnhancedLinearPerceptron ehp = new EnhancedLinearPerceptron();
+            ehp.setOnline(online);
+            ehp.setStandardisedAttributes(false);
+            ehp.setSinglePrecision(singlePrecision);
+            ehp.buildClassifier(data.subset(train));
+
+            for(int i = fold; i < totalInstances; i += folds){
+                double y = ehp.score(data, order[i]) < 0 ? -1 : 1;
+                if(y != data.getLabel(order[i])) errors++;
+            }
+        }
+
+        return errors / (double)totalInstances;
+    }
+
+    private void trainPerceptron(FeatureMatrix data) throws Exception{
 
         double y; // predicted output y
         double t; // actual output
 
         int numIterations = 0;
-        int totalInstances= instances.numInstances();
+        int totalInstances= data.numRows();
         int iterationsSinceUpdate = 0;
 
 
         boolean revolutionWithoutUpdate = false;
         boolean atIterationLimit = false;
 
-        double weights_deltas[] = new double[instances.numAttributes()];
+        double weights_deltas[] = new double[data.numColumns()];
 
         do{
 
             int instanceIndex = numIterations%totalInstances;
-            Instance instance = instances.get(instanceIndex);
 
-            y = classifyInstance(instance); // Classify the instance
+            y = score(data, instanceIndex); // Classify the instance
             y = y<0 ? -1 : 1; // Apply Logistic function to map y to -1 (if negative) or 1 (if y >= 0)
 
-            t = instance.classValue(); // Get actual class value
-            if(t==0) t=-1; //If class given is 0, set to -1 to work with perceptron logic
+            t = data.getLabel(instanceIndex); // Get actual class value, already -1 or 1
 
             // If incorrect classification was made
             if(y!=t) {
                 // Update weights across all attributes
-                for (int i = 0; i < instances.numAttributes(); i++) {
+                for (int i = 0; i < data.numColumns(); i++) {
                     // Calculate new weigh
-                    weights_deltas[i] = 0.5 * learningRate * (t - y) * instance.value(i); // Could ignore class value, but has no effect on classification
-                    // If online, update weights immediately
-                    if(online) weights[i] = weights[i] + weights_deltas[i];
+                    weights_deltas[i] = 0.5 * learningRate * (t - y) * data.get(instanceIndex, i); // Could ignore class value, but has no effect on classification
                 }
+                // If online, update weights immediately
+                if(online) addToWeights(weights_deltas);
 
                 iterationsSinceUpdate = 0;
             }else{
@@ -97,13 +131,10 @@ public class EnhancedLinearPerceptron extends LinearPerceptron implements Serial
                 }
 
                 if(changes) {
-                    // For every attribute/weight
-                    for (int i = 0; i < instances.numAttributes(); i++) {
-                        // Update weight with delta
-                        weights[i] = weights[i] + weights_deltas[i];
-                    }
+                    // Update every weight with delta
+                    addToWeights(weights_deltas);
 
-                    weights_deltas = new double[instances.numAttributes()];
+                    weights_deltas = new double[data.numColumns()];
                 }else{
                     break;
                 }
@@ -111,6 +142,7 @@ public class EnhancedLinearPerceptron extends LinearPerceptron implements Serial
             }
 
             numIterations++; // Increase iteration count
+            checkpoint(numIterations);
             atIterationLimit = numIterations >= maxIterations; // Set flag if at iteration limit
             revolutionWithoutUpdate = (online && ( iterationsSinceUpdate >= (totalInstances-1) ) ); // Set flag if a full revolution has been made
 
@@ -122,43 +154,76 @@ public class EnhancedLinearPerceptron extends LinearPerceptron implements Serial
     }
 
     @Override
-    public void buildClassifier(Instances instances) throws Exception {
-        weights = new double[instances.numAttributes()]; // weights (weights), array of weights for each attribute
+    public void buildClassifier(FeatureMatrix data) throws Exception {
+        initialiseWeights(data);
 
-        if(randomizeStartingCondition){
-            for(int i=0; i< weights.length; i++){
-                weights[i] = (int)(Math.random()*10);
-            }
-        }
-        else {
-            for (int i = 0; i < weights.length; i++) {
-                weights[i] = 1; //(int)(Math.random()*10);
-            }
+        if(this.standardisedAttributes){
+            statistics = new RunningStatistics(data);
+            statistics.update(data);
+            statistics.standardise(data);
+        } //Standardize attributes, in place
+
+        if(this.modelSelection) { online = this.selectModel(data); }
+        this.trainPerceptron(data);
+        if(quantizedInference) quantize();
+    }
+
+    @Override
+    public void updateClassifier(FeatureMatrix batch) throws Exception {
+        if(batch.numRows() == 0) return; // Nothing new to learn from, leave the statistics alone
+        if(numWeights() == 0){
+            buildClassifier(batch);
+            return;
         }
+        checkBatchWidth(batch); // Before the statistics are touched
 
         if(this.standardisedAttributes){
-            standardize.setInputFormat(instances);
-            instances = Filter.useFilter(instances, standardize);
-        } //Standardize attributes
+            statistics.update(batch); // Fold the new batch into the running statistics
+            statistics.standardise(batch);
+        }
 
-        if(this.modelSelection) { online = this.selectModel(instances); }
-        this.trainPerceptron(instances);
+        this.trainPerceptron(batch); // Model selection is not repeated, keep current online setting
+        if(quantizedInference) quantize();
     }
 
     @Override
-    public double classifyInstance(Instance instance) throws Exception {
+    protected void saveCheckpointState() {
+        checkpointStatistics = statistics == null ? null : statistics.copy();
+    }
 
-        if(standardisedAttributes){
-            standardize.input(instance);
-            instance = standardize.output();
-        }
+    @Override
+    protected void discardCheckpoint() {
+        super.discardCheckpoint();
+        checkpointStatistics = null;
+    }
 
-        double prediction_real = 0;
-        for(int i = 0; i < weights.length; i++){
-            prediction_real = prediction_real + (weights[i] * instance.value(i));
-        }
+    @Override
+    protected void restoreCheckpointState() {
+        statistics = checkpointStatistics == null ? null : checkpointStatistics.copy();
+    }
+
+    @Override
+    public double[] classifyBatch(FeatureMatrix batch) throws Exception {
+        return classifyBatchInPlace(standardisedAttributes ? batch.copy() : batch); // Standardise a copy, not the caller's data
+    }
+
+    @Override
+    protected double[] classifyBatchInPlace(FeatureMatrix batch) throws Exception {
+        if(standardisedAttributes) statistics.standardise(batch);
+        return super.classifyBatchInPlace(batch);
+    }
 
-        return prediction_real >= 0 ? 1.0 : -1.0;
+    // The training mean, which standardises to 0
+    @Override
+    public double neutralValue(int attribute) {
+        return standardisedAttributes ? statistics.getMean(attribute) : 0;
+    }
+
+    @Override
+    protected double value(Instance instance, int attribute) {
+        double value = instance.value(attribute);
+        if(standardisedAttributes) value = statistics.standardise(attribute, value);
+        return value;
     }
 
 
@@ -0,0 +1,215 @@
+package com.company;
+
+/*
+Primitive, row-major store of a dataset used internally for training.
+Values are held either in a double[] or, in single precision mode, a float[]
+which halves the memory traffic of a training or scoring pass.
+Every attribute is stored as a column (including the class, to line up with
+the weights), and the class of each row is kept separately as -1 or 1.
+
+The binary file format is a header (rows, columns, class index, precision)
+followed by each row's values and then its label, so it can be written one
+row at a time without holding the data in memory.
+ */
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+
+public class FeatureMatrix implements Serializable {
+
+    static final long serialVersionUID = 44L;
+    private int numRows;
+    private int numColumns;
+    private int classIndex;
+    private boolean singlePrecision;
+    private double doubleValues[];
+    private float floatValues[];
+    private byte labels[];
+
+
+    public FeatureMatrix(int numRows, int numColumns, int classIndex, boolean singlePrecision) {
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.classIndex = classIndex;
+        this.singlePrecision = singlePrecision;
+        int numCells = numCells(numRows, numColumns);
+        if (singlePrecision) floatValues = new float[numCells];
+        else doubleValues = new double[numCells];
+        labels = new byte[numRows];
+    }
+
+    /*
+    Number of values in a matrix of the given size. Values are held in a single array so the
+    total must fit in an int, which also keeps row * numColumns offsets from overflowing.
+     */
+    public static int numCells(int numRows, int numColumns) {
+        if (numRows < 0 || numColumns < 0) {
+            throw new IllegalArgumentException("Invalid matrix size " + numRows + " x " + numColumns);
+        }
+        try {
+            return Math.multiplyExact(numRows, numColumns);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(numRows + " rows x " + numColumns + " columns is more than "
+                    + Integer.MAX_VALUE + " values, which is the most a FeatureMatrix can hold");
+        }
+    }
+
+    public static FeatureMatrix fromInstances(Instances instances, boolean singlePrecision) {
+        FeatureMatrix matrix = new FeatureMatrix(instances.numInstances(), instances.numAttributes(), instances.classIndex(), singlePrecision);
+
+        int row = 0;
+        for (Instance instance : instances) {
+            for (int i = 0; i < matrix.numColumns; i++) {
+                matrix.set(row, i, instance.value(i));
+            }
+            matrix.setLabel(row, instance.classValue());
+            row++;
+        }
+        return matrix;
+    }
+
+    public int numRows() { return numRows; }
+    public int numColumns() { return numColumns; }
+    public int classIndex() { return classIndex; }
+    public boolean isSinglePrecision() { return singlePrecision; }
+
+    public double get(int row, int column) {
+        int index = row * numColumns + column;
+        return singlePrecision ? floatValues[index] : doubleValues[index];
+    }
+
+    public void set(int row, int column, double value) {
+        int index = row * numColumns + column;
+        if (singlePrecision) floatValues[index] = (float) value;
+        else doubleValues[index] = value;
+    }
+
+    public double getLabel(int row) { return labels[row]; }
+
+    // Class value 0 is stored as -1 to work with perceptron logic, anything else as 1
+    public void setLabel(int row, double classValue) { labels[row] = (byte) (classValue == 0 ? -1 : 1); }
+
+    public double dot(int row, double weights[]) {
+        int offset = row * numColumns;
+        double sum = 0;
+        if (singlePrecision) {
+            for (int i = 0; i < numColumns; i++) sum += weights[i] * floatValues[offset + i];
+        } else {
+            for (int i = 0; i < numColumns; i++) sum += weights[i] * doubleValues[offset + i];
+        }
+        return sum;
+    }
+
+    public double dot(int row, float weights[]) {
+        int offset = row * numColumns;
+        float sum = 0;
+        if (singlePrecision) {
+            for (int i = 0; i < numColumns; i++) sum += weights[i] * floatValues[offset + i];
+        } else {
+            for (int i = 0; i < numColumns; i++) sum += weights[i] * (float) doubleValues[offset + i];
+        }
+        return sum;
+    }
+
+    public double dot(int row, byte weights[]) {
+        int offset = row * numColumns;
+        double sum = 0;
+        if (singlePrecision) {
+            for (int i = 0; i < numColumns; i++) sum += weights[i] * floatValues[offset + i];
+        } else {
+            for (int i = 0; i < numColumns; i++) sum += weights[i] * doubleValues[offset + i];
+        }
+        return sum;
+    }
+
+    // weights += scale * row
+    public void addScaledRow(int row, double scale, double weights[]) {
+        for (int i = 0; i < numColumns; i++) weights[i] += scale * get(row, i);
+    }
+
+    public void addScaledRow(int row, double scale, float weights[]) {
+        float s = (float) scale;
+        for (int i = 0; i < numColumns; i++) weights[i] += s * (float) get(row, i);
+    }
+
+    public FeatureMatrix copy() {
+        FeatureMatrix matrix = new FeatureMatrix(numRows, numColumns, classIndex, singlePrecision);
+        if (singlePrecision) System.arraycopy(floatValues, 0, matrix.floatValues, 0, floatValues.length);
+        else System.arraycopy(doubleValues, 0, matrix.doubleValues, 0, doubleValues.length);
+        System.arraycopy(labels, 0, matrix.labels, 0, numRows);
+        return matrix;
+    }
+
+    // Copy of the given rows, in the given order
+    public FeatureMatrix subset(int rows[]) {
+        FeatureMatrix matrix = new FeatureMatrix(rows.length, numColumns, classIndex, singlePrecision);
+        for (int i = 0; i < rows.length; i++) {
+            int from = rows[i] * numColumns;
+            int to = i * numColumns;
+            if (singlePrecision) System.arraycopy(floatValues, from, matrix.floatValues, to, numColumns);
+            else System.arraycopy(doubleValues, from, matrix.doubleValues, to, numColumns);
+            matrix.labels[i] = labels[rows[i]];
+        }
+        return matrix;
+    }
+
+    public static void writeHeader(DataOutputStream out, int numRows, int numColumns, int classIndex, boolean singlePrecision) throws IOException {
+        out.writeInt(numRows);
+        out.writeInt(numColumns);
+        out.writeInt(classIndex);
+        out.writeBoolean(singlePrecision);
+    }
+
+    public static void writeRow(DataOutputStream out, double values[], double classValue, boolean singlePrecision) throws IOException {
+        for (double value : values) {
+            if (singlePrecision) out.writeFloat((float) value);
+            else out.writeDouble(value);
+        }
+        out.writeByte(classValue == 0 ? -1 : 1);
+    }
+
+    public void write(String filePath) throws IOException {
+        write(filePath, 0, numRows);
+    }
+
+    // Writes rows [from, to) as a file of their own
+    public void write(String filePath, int from, int to) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)))) {
+            writeHeader(out, to - from, numColumns, classIndex, singlePrecision);
+            double values[] = new double[numColumns];
+            for (int row = from; row < to; row++) {
+                for (int i = 0; i < numColumns; i++) values[i] = get(row, i);
+                writeRow(out, values, labels[row] == -1 ? 0 : 1, singlePrecision);
+            }
+        }
+    }
+
+    public static FeatureMatrix read(String filePath) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath)))) {
+            int numRows = in.readInt();
+            int numColumns = in.readInt();
+            int classIndex = in.readInt();
+            boolean singlePrecision = in.readBoolean();
+            numCells(numRows, numColumns); // Fail before reading anything if it cannot be held
+
+            FeatureMatrix matrix = new FeatureMatrix(numRows, numColumns, classIndex, singlePrecision);
+            for (int row = 0; row < numRows; row++) {
+                for (int i = 0; i < numColumns; i++) {
+                    matrix.set(row, i, singlePrecision ? in.readFloat() : in.readDouble());
+                }
+                matrix.labels[row] = in.readByte();
+            }
+            return matrix;
+        }
+    }
+
+}
@@ -13,8 +13,13 @@ import weka.core.Capabilities;
 import weka.core.CapabilitiesHandler;
 import weka.core.Instance;
 import weka.core.Instances;
+import weka.core.SerializationHelper;
 
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
 import java.util.Iterator;
 
@@ -24,15 +29,245 @@ public class LinearPerceptron implements Classifier, CapabilitiesHandler, Serial
     protected boolean debug = false;
     protected int maxIterations = 10000;
     protected double weights[];
+    protected int classIndex = -1; // Class attribute of the training data, -1 if it had none
+    protected float singleWeights[]; // Used in place of weights when in single precision
     protected double learningRate = 1;
     protected boolean randomizeStartingCondition = false;
+    protected boolean singlePrecision = false;
+
+    // Int8 quantized inference, weights are stored as quantizationScale * quantizedWeights[i]
+    protected boolean quantizedInference = false;
+    protected byte quantizedWeights[];
+    protected double quantizationScale = 1;
+    protected double minQuantizedAgreement = 0.99; // Below this agreement with full precision, int8 is not safe for a model
+
+    // Checkpointing, disabled while checkpointInterval is 0
+    protected int checkpointInterval = 0;
+    protected String checkpointFile = null;
+    protected double checkpointWeights[];
 
 
     public void setMaxIterations(int maxIterations) { this.maxIterations = maxIterations; }
     public void setLearningRate(double learningRate) { this.learningRate = learningRate; }
     public void setRandomStartingCondition(boolean startContition) { this.randomizeStartingCondition = startContition; }
+    public void setSinglePrecision(boolean singlePrecision) { this.singlePrecision = singlePrecision; }
+    public void setCheckpointInterval(int checkpointInterval) { this.checkpointInterval = checkpointInterval; }
+    public void setCheckpointFile(String checkpointFile) { this.checkpointFile = checkpointFile; }
+    public double[] getCheckpointWeights() { return checkpointWeights; }
+
+    public void setQuantizedInference(boolean quantizedInference) {
+        this.quantizedInference = quantizedInference;
+        if(quantizedInference && numWeights() > 0) quantize();
+    }
+
+    /*
+    As above, then checks the int8 weights against the full precision weights on reference data.
+    Returns the agreement, or 1 if quantized inference was not turned on.
+     */
+    public double setQuantizedInference(boolean quantizedInference, FeatureMatrix reference) throws Exception {
+        setQuantizedInference(quantizedInference);
+        if(quantizedInference && numWeights() > 0) return quantizedAgreement(reference);
+        return 1;
+    }
+
+    public double getMinQuantizedAgreement() { return minQuantizedAgreement; }
+    public void setMinQuantizedAgreement(double minQuantizedAgreement) { this.minQuantizedAgreement = minQuantizedAgreement; }
+
+    public int getClassIndex() { return classIndex; }
+
+    public int numWeights() {
+        if(singleWeights != null) return singleWeights.length;
+        return weights == null ? 0 : weights.length;
+    }
+
+    protected double weight(int i) { return singleWeights != null ? singleWeights[i] : weights[i]; }
+
+    // Copy of the weights as doubles, whichever precision they are held in
+    public double[] getWeights() {
+        double copy[] = new double[numWeights()];
+        for(int i = 0; i < copy.length; i++) copy[i] = weight(i);
+        return copy;
+    }
+
+    public void setWeights(double newWeights[]) {
+        if(singlePrecision){
+            weights = null;
+            singleWeights = new float[newWeights.length];
+            for(int i = 0; i < newWeights.length; i++) singleWeights[i] = (float)newWeights[i];
+        }
+        else {
+            singleWeights = null;
+            weights = newWeights.clone();
+        }
+        if(quantizedInference) quantize();
+    }
+
+    public void restoreCheckpoint() {
+        if(checkpointWeights == null) return;
+        if(checkpointWeights.length != numWeights()){
+            throw new IllegalStateException("Checkpoint has " + checkpointWeights.length + " weights but the model has " + numWeights());
+        }
+        setWeights(checkpointWeights);
+        restoreCheckpointState();
+    }
+
+    // Subclasses save and restore any state the weights were trained against, alongside the weights
+    protected void saveCheckpointState() {}
+    protected void restoreCheckpointState() {}
+
+    // Forgets the checkpoint, called when the weights are initialised for a new model
+    protected void discardCheckpoint() {
+        checkpointWeights = null;
+    }
+
+    /*
+    Called after every training iteration, every checkpointInterval iterations the weights are
+    copied aside and, if a checkpoint file is set, the whole model is serialized to it.
+     */
+    protected void checkpoint(int numIterations) throws Exception {
+        if(checkpointInterval <= 0 || numIterations % checkpointInterval != 0) return;
+
+        checkpointWeights = getWeights();
+        saveCheckpointState();
+        if(checkpointFile != null) writeCheckpointFile();
+        if(debug) System.out.println("Checkpoint at iteration " + numIterations);
+    }
+
+    /*
+    Serializes the model to a temporary file next to checkpointFile and then moves it into place,
+    so the previous checkpoint survives if the process dies part way through writing.
+     */
+    private void writeCheckpointFile() throws Exception {
+        Path target = Paths.get(checkpointFile).toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            SerializationHelper.write(temp.toString(), this);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp); // Only still there if writing or moving failed
+        }
+    }
+
+    /*
+    Maps the trained weights onto signed bytes with a single scale factor for the model,
+    the largest magnitude weight maps to 127.
+    This is not a drop-in replacement for the full precision weights. With many correlated
+    attributes the margin can be smaller than one quantization step, for example the enhanced
+    perceptron on hill-valley (100 attributes) drops from 0.98 to 0.62 test accuracy.
+    Check a model with quantizedAgreement before deploying it quantized.
+     */
+    public void quantize() {
+        double maxMagnitude = 0;
+        for(int i = 0; i < numWeights(); i++) maxMagnitude = Math.max(maxMagnitude, Math.abs(weight(i)));
+
+        quantizationScale = maxMagnitude > 0 ? maxMagnitude / 127 : 1;
+        quantizedWeights = new byte[numWeights()];
+        for(int i = 0; i < quantizedWeights.length; i++){
+            quantizedWeights[i] = (byte)Math.round(weight(i) / quantizationScale);
+        }
+    }
+
+    /*
+    Fraction of the reference rows that the int8 weights classify the same as the full precision
+    weights, re-quantizing the current weights first. Compare the result with minQuantizedAgreement
+    before deploying a model quantized, in debug mode a warning is printed when it is below.
+    The reference rows are in the same form as training data, they are not modified.
+     */
+    public double quantizedAgreement(FeatureMatrix reference) throws Exception {
+        if(reference.numColumns() != numWeights()){
+            throw new IllegalArgumentException("Reference has " + reference.numColumns() + " attributes but the model has " + numWeights());
+        }
+
+        boolean wasQuantized = quantizedInference;
+        double fullPredictions[];
+        double quantizedPredictions[];
+        quantize(); // The int8 weights may be older than the current weights
+        try {
+            quantizedInference = false;
+            fullPredictions = classifyBatch(reference);
+            quantizedInference = true;
+            quantizedPredictions = classifyBatch(reference);
+        } finally {
+            quantizedInference = wasQuantized;
+        }
+
+        int agree = 0;
+        for(int row = 0; row < fullPredictions.length; row++){
+            if(fullPredictions[row] == quantizedPredictions[row]) agree++;
+        }
+        double agreement = fullPredictions.length == 0 ? 1 : agree / (double)fullPredictions.length;
+
+        if(debug && agreement < minQuantizedAgreement){
+            System.out.println("int8 weights agree with full precision on only " + agreement + " of the reference rows");
+        }
+        return agreement;
+    }
+
+    protected void initialiseWeights(FeatureMatrix data) {
+        classIndex = data.classIndex();
+        double initial[] = new double[data.numColumns()]; // array of weights for each attribute
+
+        if(randomizeStartingCondition){
+            for(int i=0; i< initial.length; i++){
+                initial[i] = (int)(Math.random()*10);
+            }
+        }
+        else {
+            for (int i = 0; i < initial.length; i++) {
+                initial[i] = 1; //(int)(Math.random()*10);
+            }
+        }
+
+        quantizedWeights = null;
+        discardCheckpoint(); // Belongs to whatever model was built before
+        setWeights(initial);
+    }
+
+    // Linear prediction for a row of the training data, using the weights at whatever precision they are held
+    protected double score(FeatureMatrix data, int row) {
+        return singleWeights != null ? data.dot(row, singleWeights) : data.dot(row, weights);
+    }
+
+    // weights += scale * row
+    protected void addToWeights(FeatureMatrix data, int row, double scale) {
+        if(singleWeights != null) data.addScaledRow(row, scale, singleWeights);
+        else data.addScaledRow(row, scale, weights);
+    }
+
+    protected void addToWeights(double deltas[]) {
+        for(int i = 0; i < deltas.length; i++){
+            if(singleWeights != null) singleWeights[i] += (float)deltas[i];
+            else weights[i] += deltas[i];
+        }
+    }
+
+    // Value of an attribute as seen by the model, subclasses can override to transform it
+    protected double value(Instance instance, int attribute) {
+        return instance.value(attribute);
+    }
+
+    // Raw value to use for a missing attribute so that it adds nothing to the linear prediction
+    public double neutralValue(int attribute) {
+        return 0;
+    }
+
+    // Linear prediction for an instance
+    protected double score(Instance instance) {
+        double prediction_real = 0;
+        if(quantizedInference && quantizedWeights != null){
+            for(int i = 0; i < quantizedWeights.length; i++){
+                prediction_real = prediction_real + (quantizedWeights[i] * value(instance, i));
+            }
+            return prediction_real * quantizationScale;
+        }
+
+        for(int i = 0; i < numWeights(); i++){
+            prediction_real = prediction_real + (weight(i) * value(instance, i));
+        }
+        return prediction_real;
+    }
 
-    private void trainPerceptron(Instances instances) throws Exception{
+    private void trainPerceptron(FeatureMatrix data) throws Exception{
 
         DecimalFormat df = new DecimalFormat("#.00");
 
@@ -41,7 +276,7 @@ public class LinearPerceptron implements Classifier, CapabilitiesHandler, Serial
         double t; // actual output
 
         int numIterations = 0;
-        int totalInstances= instances.numInstances();
+        int totalInstances= data.numRows();
         int iterationsSinceUpdate = 0;
 
         boolean revolutionWithoutUpdate;
@@ -49,31 +284,28 @@ public class LinearPerceptron implements Classifier, CapabilitiesHandler, Serial
 
         do{
             int index = numIterations%totalInstances;
-            Instance instance = instances.get(index);
 
-            y = classifyInstance(instance); // Classify the instance
+            y = score(data, index); // Classify the instance
             y = y<0 ? -1 : 1; // Apply Logistic function to map y to -1 (if negative) or 1 (if y >= 0)
 
-            t = instance.classValue(); // Get actual class value
-            if(t==0) t=-1; //If class given is 0, set to -1 to work with perceptron logic
+            t = data.getLabel(index); // Get actual class value, already -1 or 1
             if(debug) System.out.print(numIterations+"("+index+")    y="+y+" t="+t);
 
             // If incorrect classification was made
             if(y!=t) {
 
-                if(debug) System.out.print("  Updating weights... "+ df.format(weights[0]) + "," + df.format(weights[1]));
+                if(debug) System.out.print("  Updating weights... "+ df.format(weight(0)) + "," + df.format(weight(1)));
 
                 // Update weights across all attributes
-                for (int i = 0; i < instances.numAttributes(); i++) {
-                    weights[i] = weights[i] + 0.5 * learningRate * (t - y) * instance.value(i); // Could ignore class value, but has no effect on classification
-                }
+                addToWeights(data, index, 0.5 * learningRate * (t - y)); // Could ignore class value, but has no effect on classification
                 iterationsSinceUpdate = 0;
 
-                if(debug) System.out.print("  --> "+ df.format(weights[0]) + "," + df.format(weights[1]));
+                if(debug) System.out.print("  --> "+ df.format(weight(0)) + "," + df.format(weight(1)));
             }
             else iterationsSinceUpdate++; // no update, increase count of no updates
 
             numIterations++; //increase count of iterations
+            checkpoint(numIterations);
 
             if(debug) System.out.println();
 
@@ -87,22 +319,83 @@ public class LinearPerceptron implements Classifier, CapabilitiesHandler, Serial
 
     }
 
+    /*
+    A single pass over the data from the current weights, updating on each misclassified row.
+    Returns the number of misclassified rows. Used by parameter mixing, where each worker
+    runs an epoch on its own shard.
+     */
+    public int trainEpoch(FeatureMatrix data) throws Exception {
+        int mistakes = 0;
+        for(int row = 0; row < data.numRows(); row++){
+            double y = score(data, row) < 0 ? -1 : 1;
+            double t = data.getLabel(row);
+            if(y!=t){
+                addToWeights(data, row, 0.5 * learningRate * (t - y));
+                mistakes++;
+            }
+        }
+        return mistakes;
+    }
+
     @Override
     public void buildClassifier(Instances instances) throws Exception {
-        weights = new double[instances.numAttributes()]; // weights (weights), array of weights for each attribute
+        buildClassifier(FeatureMatrix.fromInstances(instances, singlePrecision));
+    }
 
-        if(randomizeStartingCondition){
-            for(int i=0; i< weights.length; i++){
-                weights[i] = (int)(Math.random()*10);
-            }
+    public void buildClassifier(FeatureMatrix data) throws Exception {
+        initialiseWeights(data);
+        this.trainPerceptron(data);
+        if(quantizedInference) quantize();
+    }
+
+    /*
+    Warm start, continues training the existing weights on a new batch of instances rather than
+    resetting them, so the cost is proportional to the size of the batch only.
+    An empty batch leaves the model as it is. Falls back to buildClassifier only if the model
+    has not been built yet, a batch with a different number of attributes to the model throws
+    an IllegalArgumentException.
+     */
+    public void updateClassifier(Instances batch) throws Exception {
+        updateClassifier(FeatureMatrix.fromInstances(batch, singlePrecision));
+    }
+
+    public void updateClassifier(FeatureMatrix batch) throws Exception {
+        if(batch.numRows() == 0) return; // Nothing new to learn from
+        if(numWeights() == 0){
+            buildClassifier(batch);
+            return;
         }
-        else {
-            for (int i = 0; i < weights.length; i++) {
-                weights[i] = 1; //(int)(Math.random()*10);
-            }
+        checkBatchWidth(batch);
+
+        this.trainPerceptron(batch);
+        if(quantizedInference) quantize();
+    }
+
+    protected void checkBatchWidth(FeatureMatrix batch) {
+        if(batch.numColumns() != numWeights()){
+            throw new IllegalArgumentException("Batch has " + batch.numColumns() + " attributes but the model was built with "
+                    + numWeights() + ", rebuild the model with buildClassifier to change the data format");
         }
+    }
 
-        this.trainPerceptron(instances);
+    /*
+    Classifies every row of a batch in one pass, returning 1 or -1 for each row.
+    The batch must have a column for every weight, and is left unchanged.
+     */
+    public double[] classifyBatch(FeatureMatrix batch) throws Exception {
+        return classifyBatchInPlace(batch);
+    }
+
+    // As classifyBatch, but subclasses may transform the batch while scoring it, for callers that own it
+    protected double[] classifyBatchInPlace(FeatureMatrix batch) throws Exception {
+        double predictions[] = new double[batch.numRows()];
+        for(int row = 0; row < predictions.length; row++){
+            double prediction_real;
+            if(quantizedInference && quantizedWeights != null) prediction_real = batch.dot(row, quantizedWeights);
+            else prediction_real = score(batch, row);
+            predictions[row] = prediction_real >= 0 ? 1.0 : -1.0;
+        }
+        return predictions;
     }
 
     @Override
@@ -111,11 +404,7 @@ public class LinearPerceptron implements Classifier, CapabilitiesHandler, Serial
         The method classifyInstance should applies the model to the new instance then applies
         a sensible decision rule to the resulting linear prediction.
         */
-        double prediction_real = 0;
-        for(int i = 0; i < weights.length; i++){
-            prediction_real = prediction_real + (weights[i] * instance.value(i));
-        }
-        return prediction_real >= 0 ? 1.0 : -1.0;
+        return score(instance) >= 0 ? 1.0 : -1.0;
     }
 
     @Override
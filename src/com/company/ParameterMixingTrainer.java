@@ -0,0 +1,193 @@
+package com.company;
+
+/*
+Distributed training of a LinearPerceptron by iterative parameter mixing
+(McDonald, Hall and Mann, 2010) across worker JVMs on the local machine.
+The coordinator writes each worker's shard of the data to a FeatureMatrix file and
+starts the workers, which connect back over a loopback socket. Every round the
+coordinator sends the current weights to all workers, each worker runs one epoch
+over its shard from those weights, and the coordinator averages the returned weights
+(weighted by shard size). Training stops when no worker made a mistake, the weights
+stop changing, or the round limit is reached.
+
+Protocol, all values big-endian as written by DataOutputStream:
+  worker -> coordinator: shard rows (int), once on connecting
+  coordinator -> worker: number of weights (int) then the weights (doubles), or -1 to stop
+  worker -> coordinator: mistakes (int) then the weights (doubles)
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+public class ParameterMixingTrainer {
+
+    private static final int STOP = -1;
+    private static final long EXIT_TIMEOUT_SECONDS = 10; // Grace for workers to exit once their socket is closed
+    private int numWorkers = 4;
+    private int maxRounds = 100;
+    private double tolerance = 1e-9;
+    private double learningRate = 1;
+    private int workerTimeoutMillis = 300000; // Longest to wait for a worker to reply before giving up on it
+    private boolean debug = false;
+
+
+    public void setNumWorkers(int numWorkers) { this.numWorkers = numWorkers; }
+    public void setMaxRounds(int maxRounds) { this.maxRounds = maxRounds; }
+    public void setTolerance(double tolerance) { this.tolerance = tolerance; }
+    public void setLearningRate(double learningRate) { this.learningRate = learningRate; }
+    public void setWorkerTimeoutMillis(int workerTimeoutMillis) { this.workerTimeoutMillis = workerTimeoutMillis; }
+    public void setDebug(boolean debug) { this.debug = debug; }
+
+    public LinearPerceptron train(FeatureMatrix data) throws Exception {
+        if(numWorkers < 1) throw new IllegalArgumentException("Need at least one worker, got " + numWorkers);
+        if(data.numRows() == 0) throw new IllegalArgumentException("Cannot train on an empty dataset");
+
+        LinearPerceptron model = new LinearPerceptron();
+        model.setLearningRate(learningRate);
+        model.initialiseWeights(data);
+
+        File shards[] = new File[numWorkers];
+        Process workers[] = new Process[numWorkers];
+        Socket sockets[] = new Socket[numWorkers];
+
+        try (ServerSocket server = new ServerSocket(0, numWorkers, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(60000); // Give up if a worker fails to start
+
+            // Write a contiguous shard for each worker and start it
+            for (int w = 0; w < numWorkers; w++) {
+                int from = (int) ((long) data.numRows() * w / numWorkers);
+                int to = (int) ((long) data.numRows() * (w + 1) / numWorkers);
+                shards[w] = File.createTempFile("shard" + w + "_", ".fm");
+                data.write(shards[w].getPath(), from, to);
+
+                String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+                workers[w] = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        ParameterMixingTrainer.class.getName(), "worker",
+                        Integer.toString(server.getLocalPort()), shards[w].getPath(), Double.toString(learningRate))
+                        .inheritIO().start();
+            }
+
+            DataInputStream inputs[] = new DataInputStream[numWorkers];
+            DataOutputStream outputs[] = new DataOutputStream[numWorkers];
+            int shardRows[] = new int[numWorkers];
+            for (int w = 0; w < numWorkers; w++) {
+                sockets[w] = server.accept();
+                sockets[w].setSoTimeout(workerTimeoutMillis); // A hung worker fails the round rather than blocking it forever
+                inputs[w] = new DataInputStream(new BufferedInputStream(sockets[w].getInputStream()));
+                outputs[w] = new DataOutputStream(new BufferedOutputStream(sockets[w].getOutputStream()));
+                shardRows[w] = inputs[w].readInt();
+            }
+
+            double weights[] = model.getWeights();
+            for (int round = 1; round <= maxRounds; round++) {
+
+                // Broadcast the current weights
+                for (DataOutputStream out : outputs) {
+                    out.writeInt(weights.length);
+                    for (double weight : weights) out.writeDouble(weight);
+                    out.flush();
+                }
+
+                // Gather each workers weights and mix them, weighted by shard size
+                double mixed[] = new double[weights.length];
+                int mistakes = 0;
+                for (int w = 0; w < numWorkers; w++) {
+                    mistakes += inputs[w].readInt();
+                    double proportion = shardRows[w] / (double) data.numRows();
+                    for (int i = 0; i < mixed.length; i++) mixed[i] += proportion * inputs[w].readDouble();
+                }
+
+                double maxChange = 0;
+                for (int i = 0; i < mixed.length; i++) maxChange = Math.max(maxChange, Math.abs(mixed[i] - weights[i]));
+                weights = mixed;
+
+                if (debug) System.out.println("Round " + round + ": " + mistakes + " mistakes, max weight change " + maxChange);
+                if (mistakes == 0 || maxChange < tolerance) break; // Converged
+            }
+
+            for (DataOutputStream out : outputs) {
+                out.writeInt(STOP);
+                out.flush();
+            }
+            model.setWeights(weights);
+
+        } finally {
+            for (Socket socket : sockets) if (socket != null) socket.close();
+            for (Process worker : workers) {
+                if (worker != null && !worker.waitFor(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) worker.destroyForcibly();
+            }
+            for (File shard : shards) if (shard != null) shard.delete();
+        }
+
+        return model;
+    }
+
+    // Worker side, loads its shard and runs an epoch for every set of weights it is sent
+    private static void runWorker(int port, String shardPath, double learningRate) throws Exception {
+        FeatureMatrix shard = FeatureMatrix.read(shardPath);
+        LinearPerceptron lp = new LinearPerceptron();
+        lp.setLearningRate(learningRate);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(shard.numRows());
+            out.flush();
+
+            int numWeights;
+            while ((numWeights = in.readInt()) != STOP) {
+                double weights[] = new double[numWeights];
+                for (int i = 0; i < numWeights; i++) weights[i] = in.readDouble();
+                lp.setWeights(weights);
+
+                int mistakes = lp.trainEpoch(shard);
+
+                out.writeInt(mistakes);
+                for (double weight : lp.getWeights()) out.writeDouble(weight);
+                out.flush();
+            }
+        }
+    }
+
+    /*
+    Usage:
+      ParameterMixingTrainer <feature matrix file> [workers] [max rounds]
+      ParameterMixingTrainer worker <port> <shard file> <learning rate>   (started by the coordinator)
+     */
+    public static void main(String[] args) {
+        try{
+            if(args[0].equals("worker")){
+                runWorker(Integer.parseInt(args[1]), args[2], Double.parseDouble(args[3]));
+                return;
+            }
+
+            FeatureMatrix data = FeatureMatrix.read(args[0]);
+            ParameterMixingTrainer trainer = new ParameterMixingTrainer();
+            if(args.length > 1) trainer.setNumWorkers(Integer.parseInt(args[1]));
+            if(args.length > 2) trainer.setMaxRounds(Integer.parseInt(args[2]));
+            trainer.setDebug(true);
+
+            long start = System.nanoTime();
+            LinearPerceptron lp = trainer.train(data);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            int correct = 0;
+            for(int row = 0; row < data.numRows(); row++){
+                double y = lp.score(data, row) < 0 ? -1 : 1;
+                if(y == data.getLabel(row)) correct++;
+            }
+            System.out.printf("Trained in %.2fs, training accuracy %.4f%n", seconds, correct / (double)data.numRows());
+
+        }catch(Exception e){
+            e.printStackTrace();
+        }
+    }
+
+}
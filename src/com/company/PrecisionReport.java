@@ -0,0 +1,72 @@
+package com.company;
+
+/*
+Compares the test accuracy of the double precision perceptrons against the
+single precision (float) and int8 quantized versions on every UCI dataset split.
+Differences are reported as reduced precision accuracy minus double accuracy.
+The int8 agreement column is LinearPerceptron.quantizedAgreement on the training data,
+with a * where it is below the model's minimum for quantized inference.
+ */
+
+import weka.core.Instances;
+
+import java.text.DecimalFormat;
+import java.util.Iterator;
+
+public class PrecisionReport {
+
+    private static LinearPerceptron newClassifier(boolean enhanced) {
+        return enhanced ? new EnhancedLinearPerceptron() : new LinearPerceptron();
+    }
+
+    // Accuracy of the double, float and int8 models respectively, then the int8 agreement and its minimum
+    public static double[] compare(boolean enhanced, Instances train, Instances test) throws Exception {
+        double accuracies[] = new double[5];
+
+        LinearPerceptron classifier = newClassifier(enhanced);
+        classifier.buildClassifier(train);
+        accuracies[0] = WekaTools.accuracy(classifier, test);
+
+        accuracies[3] = classifier.setQuantizedInference(true, FeatureMatrix.fromInstances(train, false)); // Quantize the double model just trained
+        accuracies[4] = classifier.getMinQuantizedAgreement();
+        accuracies[2] = WekaTools.accuracy(classifier, test);
+
+        classifier = newClassifier(enhanced);
+        classifier.setSinglePrecision(true);
+        classifier.buildClassifier(train);
+        accuracies[1] = WekaTools.accuracy(classifier, test);
+
+        return accuracies;
+    }
+
+    public static void main(String[] args) {
+        DecimalFormat df = new DecimalFormat("0.0000");
+
+        try{
+            System.out.printf("%40s%10s%10s%10s%10s%10s%12s%n", "dataset", "double", "float", "diff", "int8", "diff", "int8 agree");
+
+            Iterator splitDatasetIterator = new WekaTools().getSplitDatasetIterator();
+            while(splitDatasetIterator.hasNext()){
+
+                Instances traintest[] = (Instances[])splitDatasetIterator.next();
+                Instances train = traintest[0];
+                train.setClassIndex(train.numAttributes()-1);
+                Instances test = traintest[1];
+                test.setClassIndex(test.numAttributes()-1);
+
+                for(boolean enhanced : new boolean[]{false, true}){
+                    double acc[] = compare(enhanced, train, test);
+                    String name = train.relationName() + (enhanced ? " (enhanced)" : "");
+                    System.out.printf("%40s%10s%10s%10s%10s%10s%12s%n", name,
+                            df.format(acc[0]), df.format(acc[1]), df.format(acc[1] - acc[0]),
+                            df.format(acc[2]), df.format(acc[2] - acc[0]),
+                            df.format(acc[3]) + (acc[3] < acc[4] ? "*" : " "));
+                }
+            }
+
+        }catch(Exception e){
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.company;
+
+/*
+Running mean and standard deviation of the numeric attributes of a dataset.
+Uses Welford's method so that new batches can be folded into the statistics
+without revisiting data that has already been seen.
+A batch is split into row partitions which are summarised in parallel and then
+merged (Chan et al.), so computing the statistics is a single pass over the data.
+The class attribute is left untouched.
+ */
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class RunningStatistics implements Serializable {
+
+    static final long serialVersionUID = 43L;
+    private static final int MIN_ROWS_PER_PARTITION = 4096; // Below this, not worth a separate thread
+    private long count = 0;
+    private double means[];
+    private double sumSquaredDeviations[];
+    private boolean standardised[]; // Flag for each attribute, true if it gets standardised
+
+
+    public RunningStatistics(FeatureMatrix format) {
+        int numAttributes = format.numColumns();
+        means = new double[numAttributes];
+        sumSquaredDeviations = new double[numAttributes];
+        standardised = new boolean[numAttributes];
+
+        for (int i = 0; i < numAttributes; i++) {
+            standardised[i] = i != format.classIndex();
+        }
+    }
+
+    // Empty statistics for the same attributes as other
+    private RunningStatistics(RunningStatistics other) {
+        means = new double[other.means.length];
+        sumSquaredDeviations = new double[other.means.length];
+        standardised = other.standardised;
+    }
+
+    public RunningStatistics copy() {
+        RunningStatistics copy = new RunningStatistics(this);
+        copy.count = count;
+        copy.means = means.clone();
+        copy.sumSquaredDeviations = sumSquaredDeviations.clone();
+        return copy;
+    }
+
+    public long getCount() { return count; }
+    public double getMean(int attribute) { return means[attribute]; }
+
+    public double getStdDev(int attribute) {
+        if (count < 2) return 0;
+        return Math.sqrt(sumSquaredDeviations[attribute] / (count - 1));
+    }
+
+    private static int numPartitions(int numRows) {
+        int partitions = Math.min(Runtime.getRuntime().availableProcessors(), numRows / MIN_ROWS_PER_PARTITION);
+        return Math.max(partitions, 1);
+    }
+
+    public void update(FeatureMatrix batch) {
+        int numRows = batch.numRows();
+        int partitions = numPartitions(numRows);
+
+        List<RunningStatistics> partials = IntStream.range(0, partitions).parallel()
+                .mapToObj(p -> {
+                    RunningStatistics partial = new RunningStatistics(this);
+                    partial.update(batch, (int) ((long) numRows * p / partitions), (int) ((long) numRows * (p + 1) / partitions));
+                    return partial;
+                })
+                .collect(Collectors.toList());
+
+        for (RunningStatistics partial : partials) merge(partial);
+    }
+
+    // Welford's method over rows [from, to)
+    private void update(FeatureMatrix batch, int from, int to) {
+        for (int row = from; row < to; row++) {
+            count++;
+            for (int i = 0; i < means.length; i++) {
+                if (!standardised[i]) continue;
+                double value = batch.get(row, i);
+                double delta = value - means[i];
+                means[i] = means[i] + delta / count;
+                sumSquaredDeviations[i] = sumSquaredDeviations[i] + delta * (value - means[i]);
+            }
+        }
+    }
+
+    // Folds the statistics of other into these, returns this
+    private RunningStatistics merge(RunningStatistics other) {
+        if (other.count == 0) return this;
+
+        long total = count + other.count;
+        for (int i = 0; i < means.length; i++) {
+            double delta = other.means[i] - means[i];
+            means[i] = means[i] + delta * other.count / total;
+            sumSquaredDeviations[i] = sumSquaredDeviations[i] + other.sumSquaredDeviations[i]
+                    + delta * delta * ((double) count * other.count / total);
+        }
+        count = total;
+        return this;
+    }
+
+    public double standardise(int attribute, double value) {
+        if (!standardised[attribute]) return value;
+
+        double stdDev = getStdDev(attribute);
+        if (stdDev > 0) return (value - means[attribute]) / stdDev;
+        return value - means[attribute]; // Constant attribute, just centre it
+    }
+
+    // Standardises the matrix in place, partitions of rows in parallel
+    public void standardise(FeatureMatrix data) {
+        int numRows = data.numRows();
+        int partitions = numPartitions(numRows);
+
+        // Work out each attribute's standard deviation once rather than per value
+        double stdDevs[] = new double[means.length];
+        for (int i = 0; i < means.length; i++) {
+            double stdDev = getStdDev(i);
+            stdDevs[i] = stdDev > 0 ? stdDev : 1; // Constant attribute, just centre it
+        }
+
+        IntStream.range(0, partitions).parallel().forEach(p -> {
+            int to = (int) ((long) numRows * (p + 1) / partitions);
+            for (int row = (int) ((long) numRows * p / partitions); row < to; row++) {
+                for (int i = 0; i < means.length; i++) {
+                    if (standardised[i]) data.set(row, i, (data.get(row, i) - means[i]) / stdDevs[i]);
+                }
+            }
+        });
+    }
+
+}
@@ -0,0 +1,309 @@
+package com.company;
+
+/*
+Lightweight HTTP scoring server for a trained LinearPerceptron or EnhancedLinearPerceptron,
+built on the JDK's HttpServer.
+Requests are handled on virtual threads where the JVM has them, otherwise a cached thread pool.
+Rather than classifying each request on its own thread, requests are queued and a single
+batching thread coalesces whatever arrives within maxBatchDelay (up to maxBatchRows rows)
+into one FeatureMatrix which is scored in one pass with classifyBatch.
+
+  POST /score   one instance per line, comma separated values for every attribute in training
+                order except the class, which the server fills in itself so the caller's label can
+                never affect the prediction. ? is replaced by the model's neutralValue, 0 or, for an
+                attribute the enhanced perceptron standardises, its training mean, so an unknown value
+                adds nothing to the linear prediction. Responds with 0 or 1 per line.
+  GET  /stats   request, instance and batch counts, throughput and p50/p99 latency.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import weka.core.SerializationHelper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ScoringServer {
+
+    private static final int LATENCY_SAMPLES = 1 << 16; // Percentiles are over the most recent requests
+
+    private LinearPerceptron model;
+    private int port;
+    private int maxBatchRows = 1024;
+    private long maxBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(500);
+    private long requestTimeoutMillis = 30000; // Longest a request waits for its batch to be scored
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private Thread batcher;
+    private volatile boolean running;
+    private BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    // Counters
+    private long startTime;
+    private AtomicLong requests = new AtomicLong();
+    private AtomicLong instances = new AtomicLong();
+    private AtomicLong batches = new AtomicLong();
+    private long latencies[] = new long[LATENCY_SAMPLES];
+    private long latencyCount = 0;
+
+
+    private static class Request {
+        double rows[][];
+        long arrivalTime = System.nanoTime();
+        CompletableFuture<double[]> predictions = new CompletableFuture<>();
+    }
+
+    public ScoringServer(LinearPerceptron model, int port) {
+        this.model = model;
+        this.port = port;
+    }
+
+    public void setMaxBatchRows(int maxBatchRows) { this.maxBatchRows = maxBatchRows; }
+    public void setMaxBatchDelayMicros(long micros) { this.maxBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(micros); }
+    public void setRequestTimeoutMillis(long requestTimeoutMillis) { this.requestTimeoutMillis = requestTimeoutMillis; }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/score", this::handleScore);
+        server.createContext("/stats", this::handleStats);
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+
+        running = true;
+        startTime = System.nanoTime();
+        batcher = new Thread(this::runBatcher, "scoring-batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+        server.start();
+    }
+
+    public void stop() {
+        running = false;
+        batcher.interrupt();
+        try {
+            batcher.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failPending(new ArrayList<>()); // Anything queued after the batcher finished
+        server.stop(1); // Let handlers send the failures before connections close
+        executor.shutdown();
+    }
+
+    public int getPort() { return server.getAddress().getPort(); }
+
+    // Virtual threads are only available from Java 21, fall back to platform threads before that
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void handleScore(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "POST instances to score\n");
+                return;
+            }
+            if (!running) {
+                respond(exchange, 503, "Scoring server stopped\n");
+                return;
+            }
+
+            Request request = new Request();
+            request.rows = parseRows(exchange);
+            queue.put(request);
+            double predictions[] = request.predictions.get(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+
+            StringBuilder response = new StringBuilder();
+            for (double prediction : predictions) response.append(prediction == -1 ? 0 : 1).append('\n');
+            respond(exchange, 200, response.toString());
+
+            recordLatency(System.nanoTime() - request.arrivalTime);
+            requests.incrementAndGet();
+            instances.addAndGet(predictions.length);
+
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, e.getMessage() + "\n");
+        } catch (TimeoutException e) {
+            respond(exchange, 503, "Timed out waiting for instances to be scored\n");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) respond(exchange, 503, e.getCause().getMessage() + "\n");
+            else respond(exchange, 500, "Error scoring instances: " + e.getCause() + "\n");
+        } catch (Exception e) {
+            respond(exchange, 500, "Error scoring instances: " + e + "\n");
+        }
+    }
+
+    private double[][] parseRows(HttpExchange exchange) throws IOException {
+        List<double[]> rows = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            String values[] = line.split(",");
+            int classIndex = model.getClassIndex();
+            int numValues = classIndex >= 0 ? model.numWeights() - 1 : model.numWeights();
+            if (values.length != numValues) {
+                throw new IllegalArgumentException("Expected " + numValues + " values per line (the class is left out), got " + values.length);
+            }
+
+            double row[] = new double[model.numWeights()];
+            int next = 0;
+            for (int i = 0; i < row.length; i++) {
+                if (i == classIndex) {
+                    row[i] = model.neutralValue(i); // The class column carries no information when scoring
+                    continue;
+                }
+                String value = values[next++].trim();
+                row[i] = value.equals("?") ? model.neutralValue(i) : Double.parseDouble(value); // NumberFormatException is an IllegalArgumentException
+            }
+            rows.add(row);
+        }
+        return rows.toArray(new double[0][]);
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte bytes[] = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /*
+    Takes the first waiting request, then keeps collecting requests until the batch is full or
+    maxBatchDelay has passed, scores the batch in one pass and hands each request its predictions.
+     */
+    private void runBatcher() {
+        List<Request> batch = new ArrayList<>();
+        while (running) {
+            try {
+                Request first = queue.take();
+                batch.add(first);
+                int numRows = first.rows.length;
+
+                long deadline = System.nanoTime() + maxBatchDelayNanos;
+                while (numRows < maxBatchRows) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                    numRows += next.rows.length;
+                }
+
+                scoreBatch(batch, numRows);
+                batch.clear();
+
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                for (Request request : batch) request.predictions.completeExceptionally(e);
+                batch.clear();
+            }
+        }
+
+        failPending(batch); // Stopping, nothing taken or still queued will be scored
+    }
+
+    // Fails the given requests and everything left in the queue so no handler waits on them
+    private void failPending(List<Request> batch) {
+        queue.drainTo(batch);
+        RejectedExecutionException stopped = new RejectedExecutionException("Scoring server stopped");
+        for (Request request : batch) request.predictions.completeExceptionally(stopped);
+        batch.clear();
+    }
+
+    private void scoreBatch(List<Request> batch, int numRows) throws Exception {
+        FeatureMatrix matrix = new FeatureMatrix(numRows, model.numWeights(), model.getClassIndex(), false);
+        int row = 0;
+        for (Request request : batch) {
+            for (double values[] : request.rows) {
+                for (int i = 0; i < values.length; i++) matrix.set(row, i, values[i]);
+                row++;
+            }
+        }
+
+        double predictions[] = model.classifyBatchInPlace(matrix); // The matrix is ours, so it needn't be copied
+        batches.incrementAndGet();
+
+        row = 0;
+        for (Request request : batch) {
+            request.predictions.complete(Arrays.copyOfRange(predictions, row, row + request.rows.length));
+            row += request.rows.length;
+        }
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = nanos;
+    }
+
+    // Latency in milliseconds at the given percentile of the recent samples
+    private synchronized double latencyPercentile(double percentile) {
+        int numSamples = (int) Math.min(latencyCount, LATENCY_SAMPLES);
+        if (numSamples == 0) return 0;
+
+        long sorted[] = Arrays.copyOf(latencies, numSamples);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * numSamples) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        long numBatches = batches.get();
+
+        String stats = "requests=" + requests.get() + "\n"
+                + "instances=" + instances.get() + "\n"
+                + "batches=" + numBatches + "\n"
+                + "mean_batch_instances=" + (numBatches == 0 ? 0 : instances.get() / (double) numBatches) + "\n"
+                + "requests_per_second=" + requests.get() / seconds + "\n"
+                + "instances_per_second=" + instances.get() / seconds + "\n"
+                + "p50_ms=" + latencyPercentile(50) + "\n"
+                + "p99_ms=" + latencyPercentile(99) + "\n";
+        respond(exchange, 200, stats);
+    }
+
+    /*
+    Usage: ScoringServer <serialized model file> [port]
+    The model file is a LinearPerceptron or EnhancedLinearPerceptron written with SerializationHelper,
+    for example a checkpoint file.
+     */
+    public static void main(String[] args) {
+        try{
+            LinearPerceptron model = (LinearPerceptron) SerializationHelper.read(args[0]);
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+
+            ScoringServer server = new ScoringServer(model, port);
+            server.start();
+            System.out.println("Scoring on port " + server.getPort());
+
+        }catch(Exception e){
+            e.printStackTrace();
+        }
+    }
+
+}
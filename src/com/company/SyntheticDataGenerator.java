@@ -0,0 +1,179 @@
+package com.company;
+
+/*
+Streaming generator for synthetic versions of the ringnorm and twonorm datasets
+(Breiman, 1996), plus a linearly separable control, for load testing at sizes
+well beyond the bundled UCI files.
+  ringnorm:  class 0 ~ N(0, 4I), class 1 ~ N(a, I) with a = 1/sqrt(d) in every dimension
+  twonorm:   class 0 ~ N(a, I), class 1 ~ N(-a, I) with a = 2/sqrt(d) in every dimension
+  separable: uniform on [-1,1]^d, class given by the side of a fixed random hyperplane
+Rows are written one at a time, either as ARFF or the FeatureMatrix binary format,
+so the number of rows is limited by disk space rather than memory.
+The same seed always gives the same data.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+public class SyntheticDataGenerator {
+
+    public enum Distribution { RINGNORM, TWONORM, SEPARABLE }
+
+    private Distribution distribution;
+    private int numAttributes;
+    private Random random;
+    private double hyperplane[]; // Only used by the separable control
+
+
+    public SyntheticDataGenerator(Distribution distribution, int numAttributes, long seed) {
+        this.distribution = distribution;
+        this.numAttributes = numAttributes;
+        this.random = new Random(seed);
+
+        hyperplane = new double[numAttributes];
+        for (int i = 0; i < numAttributes; i++) hyperplane[i] = random.nextGaussian();
+    }
+
+    /*
+    Fills values with the attributes of the next row and returns its class, 0 or 1.
+    values must have length numAttributes.
+     */
+    public int nextRow(double values[]) {
+        int classValue = random.nextBoolean() ? 1 : 0;
+
+        switch (distribution) {
+            case RINGNORM:
+                double a = 1 / Math.sqrt(numAttributes);
+                for (int i = 0; i < numAttributes; i++) {
+                    values[i] = classValue == 0 ? 2 * random.nextGaussian() : a + random.nextGaussian();
+                }
+                break;
+
+            case TWONORM:
+                double mean = (classValue == 0 ? 2 : -2) / Math.sqrt(numAttributes);
+                for (int i = 0; i < numAttributes; i++) {
+                    values[i] = mean + random.nextGaussian();
+                }
+                break;
+
+            case SEPARABLE:
+                double side = 0;
+                for (int i = 0; i < numAttributes; i++) {
+                    values[i] = 2 * random.nextDouble() - 1;
+                    side += hyperplane[i] * values[i];
+                }
+                classValue = side >= 0 ? 1 : 0;
+                break;
+        }
+        return classValue;
+    }
+
+    // Writes numRows rows in the same layout as the bundled UCI files
+    public void writeArff(String filePath, long numRows) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath), 1 << 16)) {
+            writer.write("@relation " + distribution.name().toLowerCase() + "\n\n");
+            for (int i = 1; i <= numAttributes; i++) {
+                writer.write("@attribute f" + i + " numeric\n");
+            }
+            writer.write("@attribute clase {0,1}\n\n@data\n");
+
+            double values[] = new double[numAttributes];
+            StringBuilder line = new StringBuilder();
+            for (long row = 0; row < numRows; row++) {
+                int classValue = nextRow(values);
+                line.setLength(0);
+                for (double value : values) line.append((float) value).append(',');
+                line.append(classValue).append('\n');
+                writer.write(line.toString());
+            }
+        }
+    }
+
+    // Writes numRows rows in the FeatureMatrix binary format, the class is the last column
+    public void writeFeatureMatrix(String filePath, int numRows, boolean singlePrecision) throws IOException {
+        FeatureMatrix.numCells(numRows, numAttributes + 1); // Don't write a file that could never be read back
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath), 1 << 16))) {
+            FeatureMatrix.writeHeader(out, numRows, numAttributes + 1, numAttributes, singlePrecision);
+
+            double values[] = new double[numAttributes + 1];
+            for (int row = 0; row < numRows; row++) {
+                int classValue = nextRow(values);
+                values[numAttributes] = classValue;
+                FeatureMatrix.writeRow(out, values, classValue, singlePrecision);
+            }
+        }
+    }
+
+    /*
+    Generates straight into memory, for throughput tests that should not include disk time.
+     */
+    public FeatureMatrix generate(int numRows, boolean singlePrecision) {
+        FeatureMatrix matrix = new FeatureMatrix(numRows, numAttributes + 1, numAttributes, singlePrecision);
+
+        double values[] = new double[numAttributes];
+        for (int row = 0; row < numRows; row++) {
+            int classValue = nextRow(values);
+            for (int i = 0; i < numAttributes; i++) matrix.set(row, i, values[i]);
+            matrix.set(row, numAttributes, classValue);
+            matrix.setLabel(row, classValue);
+        }
+        return matrix;
+    }
+
+    /*
+    Trains a LinearPerceptron on a FeatureMatrix file and reports rows per second and heap used.
+     */
+    public static void benchmark(String filePath) throws Exception {
+        Runtime runtime = Runtime.getRuntime();
+
+        long start = System.nanoTime();
+        FeatureMatrix data = FeatureMatrix.read(filePath);
+        double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+        LinearPerceptron lp = new LinearPerceptron();
+        lp.setSinglePrecision(data.isSinglePrecision());
+        lp.setMaxIterations(data.numRows());
+
+        start = System.nanoTime();
+        lp.buildClassifier(data);
+        double trainSeconds = (System.nanoTime() - start) / 1e9;
+
+        long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("%d rows x %d columns, loaded in %.2fs, trained %.0f rows/s, heap used %d MB%n",
+                data.numRows(), data.numColumns(), loadSeconds, data.numRows() / trainSeconds, usedMemory >> 20);
+    }
+
+    /*
+    Usage:
+      SyntheticDataGenerator <ringnorm|twonorm|separable> <rows> <arff|float|double> <output file> [attributes] [seed]
+      SyntheticDataGenerator benchmark <feature matrix file>
+     */
+    public static void main(String[] args) {
+        try{
+            if(args[0].equals("benchmark")){
+                benchmark(args[1]);
+                return;
+            }
+
+            Distribution distribution = Distribution.valueOf(args[0].toUpperCase());
+            long numRows = Long.parseLong(args[1]);
+            String format = args[2];
+            String filePath = args[3];
+            int numAttributes = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+            long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+
+            SyntheticDataGenerator generator = new SyntheticDataGenerator(distribution, numAttributes, seed);
+            if(format.equals("arff")) generator.writeArff(filePath, numRows);
+            else generator.writeFeatureMatrix(filePath, Math.toIntExact(numRows), format.equals("float"));
+
+        }catch(Exception e){
+            e.printStackTrace();
+        }
+    }
+
+}